@@ -33,11 +33,11 @@ public class Amenities {
    private final static String BOOKING_DURATION_HOUR_XPATH = "//select[contains(@ng-options,'durationHours')]";
    private final static String BOOKING_DURATION_MINUTE_XPATH = "//select[contains(@ng-options,'durationMinutes')]";
 
-   Amenities(WebDriver givenDriver) {
-      this.driver = givenDriver;
-      this.interaction = new InteractionUtils(driver);
-      this.waitUtils = new WaitUtils(driver);
-      this.state = new StateUtils(driver);
+   Amenities(SessionContext givenSession) {
+      this.driver = givenSession.driver();
+      this.interaction = givenSession.interaction();
+      this.waitUtils = givenSession.waitUtils();
+      this.state = givenSession.state();
    }
 
    enum AmenitiesLinks {
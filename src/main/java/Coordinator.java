@@ -0,0 +1,428 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shards scenario runs across several Worker JVMs and aggregates their results and timings.
+ * Work goes to whichever worker has the shortest live queue relative to its number of sessions,
+ * so slow or small workers are never handed more than they can get through. A worker that goes quiet for longer than
+ * run.timeout.seconds while it is holding runs is treated as lost, and its runs go to the others.
+ *
+ * Workers started with --local are shut down at the end; workers given by address are left running for the next
+ * coordinator.
+ *
+ * Usage: java Coordinator [scenario] [count] [host:port,host:port,...]
+ *    or: java Coordinator [scenario] [count] --local [workers] [sessions per worker] [local|remote|fake] [backend arg]
+ */
+public class Coordinator {
+   private static final int FIRST_LOCAL_PORT = 5555;
+   private static final long CONNECT_TIMEOUT_MILLIS = 30000L;
+   private static final long RUN_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("run.timeout.seconds", 600L));
+
+   //Each session slot gets one scenario running and one waiting, so a worker never sits idle between results.
+   private static final int RUNS_QUEUED_PER_SESSION = 2;
+
+   private final List<WorkerLink> workers = new ArrayList<>();
+   private final BlockingQueue<Result> results = new LinkedBlockingQueue<>();
+   private final long runTimeoutMillis;
+
+   Coordinator() {
+      this(RUN_TIMEOUT_MILLIS);
+   }
+
+   /**
+    * @param givenRunTimeoutMillis How long a worker holding runs can go without sending a result before it is treated
+    *                              as lost.
+    */
+   Coordinator(long givenRunTimeoutMillis) {
+      this.runTimeoutMillis = givenRunTimeoutMillis;
+   }
+
+   public static void main(String[] args) throws IOException, InterruptedException {
+      String scenario = args.length > 0 ? args[0] : Worker.SMOKE_SCENARIO;
+      int count = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+      List<Process> localWorkers = new ArrayList<>();
+      List<String> addresses = new ArrayList<>();
+
+      if (args.length > 3 && args[2].equals("--local")) {
+         int workerCount = Integer.parseInt(args[3]);
+         String sessions = args.length > 4 ? args[4] : "1";
+         String backend = args.length > 5 ? args[5] : "fake";
+         for (int i = 0; i < workerCount; i++) {
+            int port = FIRST_LOCAL_PORT + i;
+            localWorkers.add(startLocalWorker(port, sessions, backend, args.length > 6 ? args[6] : null));
+            addresses.add("localhost:" + port);
+         }
+      } else if (args.length > 2) {
+         for (String address : args[2].split(",")) {
+            addresses.add(address.trim());
+         }
+      } else {
+         addresses.add("localhost:" + FIRST_LOCAL_PORT);
+      }
+
+      Coordinator coordinator = new Coordinator();
+      try {
+         for (String address : addresses) {
+            coordinator.connect(address, !localWorkers.isEmpty());
+         }
+         coordinator.run(scenario, count);
+      } finally {
+         coordinator.shutdown();
+         for (Process process : localWorkers) {
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+               process.destroyForcibly();
+            }
+         }
+      }
+   }
+
+   /**
+    * Start a Worker JVM on this machine, using the same classpath as the coordinator.
+    */
+   static Process startLocalWorker(int port, String sessions, String backend, String backendArg) throws IOException {
+      String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+      List<String> command = new ArrayList<>();
+      command.add(java);
+      command.add("-cp");
+      command.add(System.getProperty("java.class.path"));
+      command.add("Worker");
+      command.add(String.valueOf(port));
+      command.add(sessions);
+      command.add(backend);
+      if (backendArg != null) {
+         command.add(backendArg);
+      }
+      return new ProcessBuilder(command).inheritIO().start();
+   }
+
+   /**
+    * Connect to a worker, retrying until it is up. Workers that were just launched take a moment to start listening.
+    * @param address The worker's host:port
+    * @param launched True if this coordinator started the worker, so should shut it down when finished.
+    */
+   void connect(String address, boolean launched) throws IOException, InterruptedException {
+      String[] hostAndPort = address.split(":");
+      long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+      Socket socket = null;
+
+      while (socket == null) {
+         try {
+            socket = new Socket(hostAndPort[0], Integer.parseInt(hostAndPort[1]));
+         } catch (IOException ex) {
+            if (System.currentTimeMillis() > deadline) {
+               throw ex;
+            }
+            Thread.sleep(250);
+         }
+      }
+
+      //A worker serves one coordinator at a time. One that is busy accepts the connection but doesn't say hello until
+      //it is free, so don't wait for ever.
+      final WorkerLink link = new WorkerLink(address, socket, launched);
+      String hello;
+      try {
+         socket.setSoTimeout((int) CONNECT_TIMEOUT_MILLIS);
+         hello = link.reader.readLine();
+      } catch (SocketTimeoutException ex) {
+         socket.close();
+         throw new IOException("Worker at " + address + " is busy with another coordinator: no hello within "
+                 + CONNECT_TIMEOUT_MILLIS + "ms");
+      }
+      if (hello == null || !hello.startsWith(Worker.HELLO + "\t")) {
+         socket.close();
+         throw new IOException("Worker at " + address + " did not say hello: " + hello);
+      }
+      //Results can be a long time apart; hung workers are caught by the run timeout instead.
+      socket.setSoTimeout(0);
+      link.sessions = Integer.parseInt(hello.split("\t")[1]);
+      workers.add(link);
+
+      Thread listener = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            link.listen(results);
+         }
+      }, "coordinator-" + address);
+      listener.setDaemon(true);
+      listener.start();
+
+      System.out.println("Connected to worker " + address + " with " + link.sessions + " sessions");
+   }
+
+   /**
+    * Run a scenario the given number of times across all connected workers, then print the aggregated results.
+    * @param scenario The scenario name, as known by Worker
+    * @param count How many times to run it
+    */
+   void run(String scenario, int count) throws InterruptedException {
+      //Ids are handed out as workers have room, so a long soak doesn't hold millions of them up front.
+      //Only runs taken back from lost workers wait in the queue.
+      Deque<Integer> pending = new ArrayDeque<>();
+      int nextId = 0;
+
+      long start = System.nanoTime();
+      int finished = 0;
+      while (finished < count) {
+         while (!pending.isEmpty() || nextId < count) {
+            WorkerLink target = leastLoaded();
+            if (target == null) {
+               break;
+            }
+            target.send(pending.isEmpty() ? nextId++ : pending.poll(), scenario);
+         }
+
+         if (!hasLiveWorker()) {
+            throw new IllegalStateException("All workers are gone with " + (count - finished) + " runs unfinished");
+         }
+
+         Result result = results.poll(1, TimeUnit.SECONDS);
+         requeueHungWorkers(pending);
+         if (result == null) {
+            continue;
+         }
+
+         if (result.lost) {
+            //The worker died; whatever it was holding goes back on the queue for the others.
+            requeue(result.link, pending);
+         } else if (result.link.record(result)) {
+            finished++;
+         }
+      }
+
+      report(scenario, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+   }
+
+   /**
+    * Give up on any worker that is holding runs but hasn't sent a result within the run timeout.
+    * It may still be connected, but it's stuck, so its runs go back on the queue.
+    */
+   private void requeueHungWorkers(Deque<Integer> pending) {
+      long cutoff = System.currentTimeMillis() - runTimeoutMillis;
+      for (WorkerLink link : workers) {
+         if (link.alive && !link.inFlight.isEmpty() && link.lastProgress < cutoff) {
+            System.out.println("Worker " + link.address + " sent nothing for " + runTimeoutMillis + "ms");
+            link.close();
+            requeue(link, pending);
+         }
+      }
+   }
+
+   private void requeue(WorkerLink link, Deque<Integer> pending) {
+      if (!link.inFlight.isEmpty()) {
+         System.out.println("Lost worker " + link.address + ", requeueing " + link.inFlight.size() + " runs");
+         pending.addAll(link.inFlight.keySet());
+         link.inFlight.clear();
+      }
+   }
+
+   /**
+    * Find the live worker with the shortest queue per session that still has room for more work.
+    * @return A WorkerLink, or null if every worker is full.
+    */
+   private WorkerLink leastLoaded() {
+      WorkerLink best = null;
+      for (WorkerLink link : workers) {
+         if (link.alive && link.inFlight.size() < link.sessions * RUNS_QUEUED_PER_SESSION
+                 && (best == null || link.load() < best.load())) {
+            best = link;
+         }
+      }
+      return best;
+   }
+
+   /**
+    * @return Every worker this coordinator has connected to, including lost ones.
+    */
+   List<WorkerLink> workers() {
+      return workers;
+   }
+
+   private boolean hasLiveWorker() {
+      for (WorkerLink link : workers) {
+         if (link.alive) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private void report(String scenario, long wallMillis) {
+      int passed = 0;
+      int failed = 0;
+      int quarantined = 0;
+      long totalMillis = 0;
+      long maxMillis = 0;
+
+      System.out.println("Results for " + scenario + ":");
+      for (WorkerLink link : workers) {
+         System.out.println(String.format("   %-20s runs=%d passed=%d failed=%d quarantined=%d avg=%dms max=%dms",
+                 link.address, link.runs(), link.passed, link.failed, link.quarantined, link.averageMillis(), link.maxMillis));
+         passed += link.passed;
+         failed += link.failed;
+         quarantined += link.quarantined;
+         totalMillis += link.totalMillis;
+         maxMillis = Math.max(maxMillis, link.maxMillis);
+      }
+
+      int runs = passed + failed + quarantined;
+      System.out.println(String.format("   %-20s runs=%d passed=%d failed=%d quarantined=%d avg=%dms max=%dms wall=%dms",
+              "TOTAL", runs, passed, failed, quarantined, runs == 0 ? 0 : totalMillis / runs, maxMillis, wallMillis));
+   }
+
+   /**
+    * Close the connections, telling the workers this coordinator started to shut down.
+    */
+   void shutdown() {
+      for (WorkerLink link : workers) {
+         link.close();
+      }
+   }
+
+   /**
+    * One finished run, or a marker that a worker connection was lost.
+    */
+   static class Result {
+      final WorkerLink link;
+      final int id;
+      final String status;
+      final long millis;
+      final String message;
+      final boolean lost;
+
+      Result(WorkerLink givenLink, int givenId, String givenStatus, long givenMillis, String givenMessage, boolean givenLost) {
+         this.link = givenLink;
+         this.id = givenId;
+         this.status = givenStatus;
+         this.millis = givenMillis;
+         this.message = givenMessage;
+         this.lost = givenLost;
+      }
+   }
+
+   /**
+    * The coordinator's view of a single worker: its connection, what it is holding, and its running totals.
+    */
+   static class WorkerLink {
+      final String address;
+      final Socket socket;
+      final boolean launched;
+      final BufferedReader reader;
+      final PrintWriter writer;
+      final Map<Integer, String> inFlight = new HashMap<>();
+
+      volatile boolean alive = true;
+      long lastProgress;
+      int sessions = 1;
+      int passed;
+      int failed;
+      int quarantined;
+      long totalMillis;
+      long maxMillis;
+
+      WorkerLink(String givenAddress, Socket givenSocket, boolean givenLaunched) throws IOException {
+         this.address = givenAddress;
+         this.socket = givenSocket;
+         this.launched = givenLaunched;
+         this.reader = new BufferedReader(new InputStreamReader(givenSocket.getInputStream(), StandardCharsets.UTF_8));
+         this.writer = new PrintWriter(givenSocket.getOutputStream(), true);
+      }
+
+      double load() {
+         return (double) inFlight.size() / sessions;
+      }
+
+      int runs() {
+         return passed + failed + quarantined;
+      }
+
+      long averageMillis() {
+         return runs() == 0 ? 0 : totalMillis / runs();
+      }
+
+      void send(int id, String scenario) {
+         //An idle worker's clock starts with its first run, not with its last result.
+         if (inFlight.isEmpty()) {
+            lastProgress = System.currentTimeMillis();
+         }
+         inFlight.put(id, scenario);
+         writer.println(Worker.RUN + "\t" + id + "\t" + scenario);
+      }
+
+      /**
+       * Count a finished run.
+       * @return False if the run was no longer ours to count, because the worker was already given up on and the run
+       * handed to someone else.
+       */
+      boolean record(Result result) {
+         if (inFlight.remove(result.id) == null) {
+            return false;
+         }
+         lastProgress = System.currentTimeMillis();
+
+         if (result.status.equals(Worker.PASS)) {
+            passed++;
+         } else if (result.status.equals(Worker.QUARANTINED)) {
+            //Known flaky, so it doesn't count against the pass rate, but it's still worth seeing.
+            quarantined++;
+            System.out.println("Run " + result.id + " hit a quarantined step on " + address + ": " + result.message);
+         } else {
+            failed++;
+            System.out.println("Run " + result.id + " failed on " + address + ": " + result.message);
+         }
+         totalMillis += result.millis;
+         maxMillis = Math.max(maxMillis, result.millis);
+         return true;
+      }
+
+      /**
+       * Read results off the worker's connection until it closes, handing each one to the coordinator.
+       */
+      void listen(BlockingQueue<Result> results) {
+         try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+               //RESULT, id, scenario, status, millis, message
+               String[] parts = line.split("\t", 6);
+               if (parts.length >= 5 && parts[0].equals(Worker.RESULT)) {
+                  results.add(new Result(this, Integer.parseInt(parts[1]), parts[3],
+                          Long.parseLong(parts[4]), parts.length > 5 ? parts[5] : "", false));
+               }
+            }
+         } catch (IOException ex) {
+            //Closing the link from our side also ends up here, which isn't worth reporting.
+            if (alive) {
+               System.out.println("Connection to worker " + address + " failed: " + ex);
+            }
+         }
+         alive = false;
+         results.add(new Result(this, -1, Worker.FAIL, 0, "", true));
+      }
+
+      void close() {
+         if (alive && launched) {
+            writer.println(Worker.SHUTDOWN);
+         }
+         alive = false;
+         try {
+            socket.close();
+         } catch (IOException ex) {
+            System.out.println("Problem closing worker " + address + ": " + ex);
+         }
+      }
+   }
+}
@@ -0,0 +1,505 @@
+import org.openqa.selenium.Alert;
+import org.openqa.selenium.By;
+import org.openqa.selenium.Cookie;
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.NoAlertPresentException;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.Point;
+import org.openqa.selenium.Rectangle;
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.UnsupportedCommandException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.WindowType;
+import org.openqa.selenium.interactions.Interactive;
+import org.openqa.selenium.interactions.Sequence;
+import org.openqa.selenium.logging.Logs;
+
+import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A stand-in driver with no browser behind it, used to exercise the coordinator/worker plumbing and the page objects
+ * on a single machine without launching real browsers.
+ *
+ * It scripts just enough of the Amenities booking site for createBookingAndVerify to pass: loading spinners are never
+ * there, submitting a booking makes its card appear and its time slot unavailable, and posting a comment makes the
+ * comment appear. Every other xpath finds a visible, enabled element. Page loads take a fixed amount of time, and each
+ * one starts the site over with no bookings or comments, so a session can run the flow again and again.
+ */
+public class FakeDriver implements WebDriver, JavascriptExecutor, Interactive {
+   private static final String WINDOW_HANDLE = "fake-window";
+
+   private final int pageLoadMillis;
+   private final Set<Cookie> cookies = new HashSet<>();
+   private String currentUrl = "about:blank";
+
+   private boolean bookingSubmitted;
+   private String typedComment = "";
+   private String postedComment;
+
+   FakeDriver(int givenPageLoadMillis) {
+      this.pageLoadMillis = givenPageLoadMillis;
+   }
+
+   @Override
+   public void get(String url) {
+      try {
+         Thread.sleep(pageLoadMillis);
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+      }
+      currentUrl = url;
+      bookingSubmitted = false;
+      typedComment = "";
+      postedComment = null;
+   }
+
+   @Override
+   public String getCurrentUrl() {
+      return currentUrl;
+   }
+
+   @Override
+   public String getTitle() {
+      return "Fake page for " + currentUrl;
+   }
+
+   @Override
+   public List<WebElement> findElements(By by) {
+      WebElement element = element(xpathOf(by));
+      return element == null ? Collections.<WebElement>emptyList() : Collections.singletonList(element);
+   }
+
+   @Override
+   public WebElement findElement(By by) {
+      WebElement element = element(xpathOf(by));
+      if (element == null) {
+         throw new NoSuchElementException("FakeDriver has no element for " + by);
+      }
+      return element;
+   }
+
+   /**
+    * Decide whether the scripted page has an element for the given xpath right now.
+    * @param xpath The xpath being looked for
+    * @return A FakeElement, or null if the page has no such element.
+    */
+   private WebElement element(String xpath) {
+      //Loading spinners, and the comment button's disabled state, are never showing.
+      if (xpath.contains("spinner") || xpath.contains("form-submitting") || xpath.contains("page-loader")
+              || xpath.contains("@disabled=''")) {
+         return null;
+      }
+      //Once a comment is posted the comment box closes.
+      if (xpath.contains("comment-btn") && postedComment != null) {
+         return null;
+      }
+      if (xpath.contains("loop-msg-body")) {
+         return postedComment != null && xpath.contains(postedComment) ? new FakeElement(xpath, "div", postedComment) : null;
+      }
+      if (xpath.contains("card-info")) {
+         return bookingSubmitted ? new FakeElement(xpath, "div", "") : null;
+      }
+      if (xpath.startsWith("//select")) {
+         return new FakeElement(xpath, "select", "");
+      }
+      return new FakeElement(xpath, "div", "");
+   }
+
+   private void clicked(String xpath) {
+      if (xpath.contains("Submit Request")) {
+         bookingSubmitted = true;
+      } else if (xpath.contains("comment-btn")) {
+         postedComment = typedComment;
+      }
+   }
+
+   private void typed(String xpath, CharSequence... keys) {
+      if (xpath.contains("comment")) {
+         for (CharSequence key : keys) {
+            typedComment += key;
+         }
+      }
+   }
+
+   private static String xpathOf(By by) {
+      String description = by.toString();
+      return description.startsWith("By.xpath: ") ? description.substring("By.xpath: ".length()) : description;
+   }
+
+   @Override
+   public String getPageSource() {
+      return "<html><head><title>" + getTitle() + "</title></head></html>";
+   }
+
+   @Override
+   public void close() {
+   }
+
+   @Override
+   public void quit() {
+   }
+
+   @Override
+   public Set<String> getWindowHandles() {
+      return Collections.singleton(WINDOW_HANDLE);
+   }
+
+   @Override
+   public String getWindowHandle() {
+      return WINDOW_HANDLE;
+   }
+
+   @Override
+   public TargetLocator switchTo() {
+      return new FakeTargetLocator();
+   }
+
+   @Override
+   public Navigation navigate() {
+      return new FakeNavigation();
+   }
+
+   @Override
+   public Options manage() {
+      return new FakeOptions();
+   }
+
+   @Override
+   public Object executeScript(String script, Object... args) {
+      return null;
+   }
+
+   @Override
+   public Object executeAsyncScript(String script, Object... args) {
+      return null;
+   }
+
+   @Override
+   public void perform(Collection<Sequence> actions) {
+   }
+
+   @Override
+   public void resetInputState() {
+   }
+
+   /**
+    * An element of the scripted page. Clicking it or typing into it is passed back to the driver, which updates the page.
+    */
+   private class FakeElement implements WebElement {
+      private final String xpath;
+      private final String tagName;
+      private final String text;
+
+      FakeElement(String givenXpath, String givenTagName, String givenText) {
+         this.xpath = givenXpath;
+         this.tagName = givenTagName;
+         this.text = givenText;
+      }
+
+      @Override
+      public void click() {
+         clicked(xpath);
+      }
+
+      @Override
+      public void submit() {
+         clicked(xpath);
+      }
+
+      @Override
+      public void sendKeys(CharSequence... keysToSend) {
+         typed(xpath, keysToSend);
+      }
+
+      @Override
+      public void clear() {
+      }
+
+      @Override
+      public String getTagName() {
+         return tagName;
+      }
+
+      @Override
+      public String getDomAttribute(String name) {
+         return null;
+      }
+
+      @Override
+      public String getAttribute(String name) {
+         return null;
+      }
+
+      @Override
+      public boolean isSelected() {
+         return false;
+      }
+
+      @Override
+      public boolean isEnabled() {
+         return true;
+      }
+
+      @Override
+      public String getText() {
+         return text;
+      }
+
+      /**
+       * Only select boxes have children: their options, which are gone once the time slot has been booked.
+       */
+      @Override
+      public List<WebElement> findElements(By by) {
+         if (!tagName.equals("select") || bookingSubmitted) {
+            return Collections.emptyList();
+         }
+         return Collections.<WebElement>singletonList(new FakeElement(xpathOf(by), "option", ""));
+      }
+
+      @Override
+      public WebElement findElement(By by) {
+         List<WebElement> found = findElements(by);
+         if (found.isEmpty()) {
+            throw new NoSuchElementException("FakeElement has no element for " + by);
+         }
+         return found.get(0);
+      }
+
+      @Override
+      public SearchContext getShadowRoot() {
+         throw new NoSuchElementException("FakeElement has no shadow root");
+      }
+
+      @Override
+      public boolean isDisplayed() {
+         return true;
+      }
+
+      @Override
+      public Point getLocation() {
+         return new Point(0, 0);
+      }
+
+      @Override
+      public Dimension getSize() {
+         return new Dimension(100, 20);
+      }
+
+      @Override
+      public Rectangle getRect() {
+         return new Rectangle(getLocation(), getSize());
+      }
+
+      @Override
+      public String getCssValue(String propertyName) {
+         return "";
+      }
+
+      @Override
+      public <X> X getScreenshotAs(OutputType<X> target) {
+         throw new UnsupportedCommandException("FakeElement cannot take screenshots");
+      }
+
+      @Override
+      public String toString() {
+         return "[FakeDriver] -> xpath: " + xpath;
+      }
+   }
+
+   private class FakeNavigation implements Navigation {
+      @Override
+      public void back() {
+      }
+
+      @Override
+      public void forward() {
+      }
+
+      @Override
+      public void to(String url) {
+         get(url);
+      }
+
+      @Override
+      public void to(URL url) {
+         get(String.valueOf(url));
+      }
+
+      @Override
+      public void refresh() {
+         get(currentUrl);
+      }
+   }
+
+   private class FakeTargetLocator implements TargetLocator {
+      @Override
+      public WebDriver frame(int index) {
+         return FakeDriver.this;
+      }
+
+      @Override
+      public WebDriver frame(String nameOrId) {
+         return FakeDriver.this;
+      }
+
+      @Override
+      public WebDriver frame(WebElement frameElement) {
+         return FakeDriver.this;
+      }
+
+      @Override
+      public WebDriver parentFrame() {
+         return FakeDriver.this;
+      }
+
+      @Override
+      public WebDriver window(String nameOrHandle) {
+         return FakeDriver.this;
+      }
+
+      @Override
+      public WebDriver newWindow(WindowType typeHint) {
+         return FakeDriver.this;
+      }
+
+      @Override
+      public WebDriver defaultContent() {
+         return FakeDriver.this;
+      }
+
+      @Override
+      public WebElement activeElement() {
+         return new FakeElement("//body", "body", "");
+      }
+
+      @Override
+      public Alert alert() {
+         throw new NoAlertPresentException("FakeDriver never shows alerts");
+      }
+   }
+
+   /**
+    * Cookies are kept so logging out can clear them; timeouts and the window are ignored.
+    */
+   private class FakeOptions implements Options {
+      @Override
+      public void addCookie(Cookie cookie) {
+         cookies.add(cookie);
+      }
+
+      @Override
+      public void deleteCookieNamed(String name) {
+         Cookie cookie = getCookieNamed(name);
+         if (cookie != null) {
+            cookies.remove(cookie);
+         }
+      }
+
+      @Override
+      public void deleteCookie(Cookie cookie) {
+         cookies.remove(cookie);
+      }
+
+      @Override
+      public void deleteAllCookies() {
+         cookies.clear();
+      }
+
+      @Override
+      public Set<Cookie> getCookies() {
+         return new HashSet<>(cookies);
+      }
+
+      @Override
+      public Cookie getCookieNamed(String name) {
+         for (Cookie cookie : cookies) {
+            if (cookie.getName().equals(name)) {
+               return cookie;
+            }
+         }
+         return null;
+      }
+
+      @Override
+      public Timeouts timeouts() {
+         return new FakeTimeouts();
+      }
+
+      @Override
+      @SuppressWarnings("deprecation")
+      public ImeHandler ime() {
+         throw new UnsupportedCommandException("FakeDriver has no input method editor");
+      }
+
+      @Override
+      public Window window() {
+         return new FakeWindow();
+      }
+
+      @Override
+      public Logs logs() {
+         throw new UnsupportedCommandException("FakeDriver has no logs");
+      }
+   }
+
+   private class FakeTimeouts implements Timeouts {
+      @Override
+      @SuppressWarnings("deprecation")
+      public Timeouts implicitlyWait(long time, TimeUnit unit) {
+         return this;
+      }
+
+      @Override
+      @SuppressWarnings("deprecation")
+      public Timeouts setScriptTimeout(long time, TimeUnit unit) {
+         return this;
+      }
+
+      @Override
+      @SuppressWarnings("deprecation")
+      public Timeouts pageLoadTimeout(long time, TimeUnit unit) {
+         return this;
+      }
+   }
+
+   private class FakeWindow implements Window {
+      @Override
+      public Dimension getSize() {
+         return new Dimension(1920, 1080);
+      }
+
+      @Override
+      public void setSize(Dimension targetSize) {
+      }
+
+      @Override
+      public Point getPosition() {
+         return new Point(0, 0);
+      }
+
+      @Override
+      public void setPosition(Point targetPosition) {
+      }
+
+      @Override
+      public void maximize() {
+      }
+
+      @Override
+      public void minimize() {
+      }
+
+      @Override
+      public void fullscreen() {
+      }
+   }
+}
@@ -0,0 +1,521 @@
+import org.openqa.selenium.WebDriverException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Keeps track of how often each step (a wait or click on a given xpath) passes, needs a retry, or fails, across runs.
+ *
+ * Every outcome is appended to a log segment of this store's own, flakiness-[writer]-[n].log. flakiness.idx holds the
+ * per-step totals folded in so far and how far into each segment they go, so opening the store only has to replay what
+ * was appended since the index was last written. Every INDEX_EVERY records, and on exit, the index is rebuilt and the
+ * segment is swapped for a new one; the old one is folded in by then, so it is deleted, and the log never grows past
+ * one segment per writer. Several JVMs can share the same store, each with its own segments; rebuilding the index
+ * holds flakiness.lock so two of them never do it at once.
+ *
+ * Retries are only allowed while the flow's RetryBudget lasts, and steps that have been flaky for long enough are
+ * quarantined: they are not retried, and their failures are reported separately from real ones.
+ */
+public class FlakinessStore {
+   private static final String USER_PATH = System.getProperty("user.dir");
+   private static final String SEGMENT_PREFIX = "flakiness-";
+   private static final String SEGMENT_SUFFIX = ".log";
+   private static final String INDEX_FILE = "flakiness.idx";
+   private static final String LOCK_FILE = "flakiness.lock";
+
+   //A step needs this many recorded attempts before it can be quarantined, so one bad run doesn't do it.
+   private static final int QUARANTINE_MIN_ATTEMPTS = 20;
+   private static final double QUARANTINE_SCORE = 0.3;
+
+   //What we assume a retry costs before we have seen one for that step. Matches the WaitUtils timeout.
+   private static final long DEFAULT_RETRY_MILLIS = 30000L;
+   static final int INDEX_EVERY = 1000;
+
+   private static FlakinessStore shared;
+
+   private final File directory;
+   private final File indexFile;
+   private final File lockFile;
+   private final String writer;
+   private final Map<String, StepStats> steps = new HashMap<>();
+   private final Map<String, Long> segmentOffsets = new HashMap<>();
+   private File segment;
+   private int segmentNumber;
+   private Writer log;
+   private int recordsSinceIndex;
+
+   /**
+    * PASSED first time, RETRIED and then passed, FAILED even after a retry, or REFUSED a retry and failed.
+    */
+   enum Outcome {
+      PASSED, RETRIED, FAILED, REFUSED
+   }
+
+   /**
+    * How much time one flow may spend on retries. Each session has one, which is reset at the start of every flow.
+    */
+   static class RetryBudget {
+      private final long budgetMillis;
+      private long remainingMillis;
+
+      RetryBudget(long givenBudgetMillis) {
+         this.budgetMillis = givenBudgetMillis;
+         this.remainingMillis = givenBudgetMillis;
+      }
+
+      /**
+       * The budget from the retry.budget.seconds system property.
+       */
+      static RetryBudget perFlow() {
+         return new RetryBudget(TimeUnit.SECONDS.toMillis(Long.getLong("retry.budget.seconds", 120L)));
+      }
+
+      void reset() {
+         remainingMillis = budgetMillis;
+      }
+
+      void spend(long millis) {
+         remainingMillis -= millis;
+      }
+
+      long remaining() {
+         return remainingMillis;
+      }
+   }
+
+   /**
+    * The running totals for a single step.
+    */
+   static class StepStats {
+      final String step;
+      long passed;
+      long retried;
+      long failed;
+      long refused;
+      long retryMillis;
+
+      StepStats(String givenStep) {
+         this.step = givenStep;
+      }
+
+      long attempts() {
+         return passed + retried + failed + refused;
+      }
+
+      /**
+       * The fraction of attempts that only passed on a retry. A step that has never passed at all isn't flaky, it's
+       * broken, so it scores 0 and its failures keep counting as failures.
+       */
+      double score() {
+         return passed + retried == 0 ? 0 : (double) retried / attempts();
+      }
+
+      /**
+       * What a retry of this step usually costs. Refused retries took no time, so they don't count.
+       */
+      long averageRetryMillis() {
+         return retried + failed == 0 ? DEFAULT_RETRY_MILLIS : retryMillis / (retried + failed);
+      }
+   }
+
+   FlakinessStore(File givenDirectory) throws IOException {
+      if (!givenDirectory.isDirectory() && !givenDirectory.mkdirs()) {
+         throw new IOException("Could not create flakiness store directory " + givenDirectory);
+      }
+      this.directory = givenDirectory;
+      this.indexFile = new File(givenDirectory, INDEX_FILE);
+      this.lockFile = new File(givenDirectory, LOCK_FILE);
+      this.writer = UUID.randomUUID().toString();
+
+      reindex(null);
+      openSegment();
+   }
+
+   /**
+    * The store shared by every session in this JVM. It lives in the "flakiness" folder of the working directory unless
+    * the flakiness.store system property says otherwise.
+    * @return The FlakinessStore
+    */
+   static synchronized FlakinessStore shared() {
+      if (shared == null) {
+         File directory = new File(System.getProperty("flakiness.store", USER_PATH + File.separator + "flakiness"));
+         try {
+            shared = new FlakinessStore(directory);
+         } catch (IOException ex) {
+            throw new IllegalStateException("Could not open flakiness store in " + directory, ex);
+         }
+
+         final FlakinessStore store = shared;
+         Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+               store.close();
+            }
+         }));
+      }
+      return shared;
+   }
+
+   /**
+    * Record the outcome of one attempt at a step.
+    * @param step The step, e.g. "click //button[@id='x']"
+    * @param outcome Whether it passed first time, passed after a retry, or failed.
+    * @param retryMillis How long the retry took, or 0 if there wasn't one.
+    */
+   synchronized void record(String step, Outcome outcome, long retryMillis) {
+      try {
+         log.write(System.currentTimeMillis() + "\t" + clean(step) + "\t" + outcome + "\t" + retryMillis + "\n");
+         log.flush();
+      } catch (IOException ex) {
+         System.out.println("Could not write to flakiness log: " + ex);
+      }
+      apply(clean(step), outcome, retryMillis);
+
+      if (++recordsSinceIndex >= INDEX_EVERY) {
+         try {
+            log.close();
+            reindex(segment);
+            openSegment();
+         } catch (IOException ex) {
+            System.out.println("Could not write flakiness index: " + ex);
+         }
+      }
+   }
+
+   /**
+    * Retry a step that just failed, if it is allowed a retry, and record how it went. The time the retry takes comes
+    * out of the flow's budget whether it works or not.
+    * @param step The step that failed
+    * @param budget The retry budget of the flow the step is in
+    * @param cause What the first attempt failed with
+    * @param retry Makes the second attempt
+    * @return Whatever the retry returned.
+    * @throws WebDriverException If the retry wasn't allowed or failed too. It is a QuarantinedStepException if the
+    * step is quarantined, otherwise the exception the step failed with.
+    */
+   <T> T retry(String step, RetryBudget budget, WebDriverException cause, Supplier<T> retry) {
+      if (!allowRetry(step, budget)) {
+         record(step, Outcome.REFUSED, 0);
+         throw failureFor(step, cause);
+      }
+
+      System.out.println("Problem with " + step + ", waiting and trying again: " + cause);
+      long start = System.currentTimeMillis();
+      T result;
+      try {
+         result = retry.get();
+      } catch (WebDriverException retryEx) {
+         long retryMillis = System.currentTimeMillis() - start;
+         budget.spend(retryMillis);
+         record(step, Outcome.FAILED, retryMillis);
+         throw failureFor(step, retryEx);
+      }
+
+      long retryMillis = System.currentTimeMillis() - start;
+      budget.spend(retryMillis);
+      record(step, Outcome.RETRIED, retryMillis);
+      return result;
+   }
+
+   /**
+    * Decide whether a step that just failed should get a retry. Quarantined steps never do, and nothing does once the
+    * expected cost of the retry is more than what is left of the flow's budget.
+    * @param step The step that failed
+    * @param budget The retry budget of the flow the step is in
+    * @return True if the caller should retry the step, false if it should give up.
+    */
+   synchronized boolean allowRetry(String step, RetryBudget budget) {
+      if (isQuarantined(step)) {
+         System.out.println("Not retrying quarantined step: " + step);
+         return false;
+      }
+
+      StepStats stats = stats(step);
+      long expectedMillis = stats == null ? DEFAULT_RETRY_MILLIS : stats.averageRetryMillis();
+      if (expectedMillis > budget.remaining()) {
+         System.out.println("Retry budget spent, " + budget.remaining() + "ms left, not retrying: " + step);
+         return false;
+      }
+      return true;
+   }
+
+   /**
+    * @param step The step to check
+    * @return True if the step has only passed on a retry often enough to be quarantined.
+    */
+   synchronized boolean isQuarantined(String step) {
+      StepStats stats = stats(step);
+      return stats != null && stats.attempts() >= QUARANTINE_MIN_ATTEMPTS && stats.score() >= QUARANTINE_SCORE;
+   }
+
+   /**
+    * @param step The step to look up
+    * @return The totals for the step, or null if it has never been recorded.
+    */
+   synchronized StepStats stats(String step) {
+      return steps.get(clean(step));
+   }
+
+   /**
+    * @return A QuarantinedStepException if the step is quarantined, otherwise the exception it failed with.
+    */
+   private WebDriverException failureFor(String step, WebDriverException cause) {
+      return isQuarantined(step) ? new QuarantinedStepException(step, cause) : cause;
+   }
+
+   /**
+    * Print every step that has ever needed a retry or failed, flakiest first.
+    */
+   synchronized void printReport(PrintStream out) {
+      List<StepStats> flaky = new ArrayList<>();
+      for (StepStats stats : steps.values()) {
+         if (stats.retried + stats.failed + stats.refused > 0) {
+            flaky.add(stats);
+         }
+      }
+      Collections.sort(flaky, new Comparator<StepStats>() {
+         @Override
+         public int compare(StepStats a, StepStats b) {
+            return Double.compare(b.score(), a.score());
+         }
+      });
+
+      out.println("Flaky steps:");
+      for (StepStats stats : flaky) {
+         out.println(String.format("   %.2f attempts=%d retried=%d failed=%d refused=%d%s %s", stats.score(), stats.attempts(),
+                 stats.retried, stats.failed, stats.refused, isQuarantined(stats.step) ? " QUARANTINED" : "", stats.step));
+      }
+   }
+
+   /**
+    * Flush the log and fold it into the index, so the next run doesn't have to replay this one.
+    * Other worker JVMs may have appended to the store, so the totals are reloaded from disk before writing.
+    */
+   synchronized void close() {
+      try {
+         log.close();
+         reindex(segment);
+      } catch (IOException ex) {
+         System.out.println("Could not close flakiness store: " + ex);
+      }
+   }
+
+   private void openSegment() throws IOException {
+      segment = new File(directory, SEGMENT_PREFIX + writer + "-" + segmentNumber++ + SEGMENT_SUFFIX);
+      log = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(segment, true), StandardCharsets.UTF_8));
+      recordsSinceIndex = 0;
+   }
+
+   /**
+    * Reload the totals from the index and every segment on disk, write them out as the new index, and delete the
+    * given segment now that it is in there. Other JVMs may have appended to their own segments, so the totals in
+    * memory can't be written as they are.
+    * @param finished A segment of ours that has been closed, or null if there isn't one.
+    */
+   private void reindex(File finished) throws IOException {
+      //The file lock keeps other JVMs out; it can't be taken twice in one JVM, so stores in this one take turns first.
+      synchronized (FlakinessStore.class) {
+         try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+              FileLock lock = channel.lock()) {
+            steps.clear();
+            segmentOffsets.clear();
+            readIndex();
+            replaySegments();
+            writeIndex();
+
+            //Only once the index has everything in it; if we die before this, the next index just drops the entry.
+            if (finished != null) {
+               Files.deleteIfExists(finished.toPath());
+               segmentOffsets.remove(finished.getName());
+            }
+         }
+      }
+   }
+
+   private void apply(String step, Outcome outcome, long retryMillis) {
+      StepStats stats = steps.get(step);
+      if (stats == null) {
+         stats = new StepStats(step);
+         steps.put(step, stats);
+      }
+
+      switch (outcome) {
+         case PASSED:
+            stats.passed++;
+            break;
+         case RETRIED:
+            stats.retried++;
+            break;
+         case REFUSED:
+            stats.refused++;
+            break;
+         case FAILED:
+         default:
+            stats.failed++;
+            break;
+      }
+      stats.retryMillis += retryMillis;
+   }
+
+   /**
+    * Load the folded totals and how far into each segment they go. Segments that have since been deleted were folded
+    * in completely, so they are dropped. If a segment is shorter than the index says, the index doesn't belong to
+    * these segments, so start from scratch.
+    */
+   private void readIndex() throws IOException {
+      if (!indexFile.isFile()) {
+         return;
+      }
+
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8))) {
+         //segment count, then segment, offset for each, then step, passed, retried, failed, refused, retry millis
+         int segments = Integer.parseInt(reader.readLine());
+         for (int i = 0; i < segments; i++) {
+            String[] parts = reader.readLine().split("\t");
+            File file = new File(directory, parts[0]);
+            long offset = Long.parseLong(parts[1]);
+            if (!file.isFile()) {
+               continue;
+            }
+            if (offset > file.length()) {
+               System.out.println("Flakiness index is ahead of " + file.getName() + ", rebuilding it from the log");
+               segmentOffsets.clear();
+               return;
+            }
+            segmentOffsets.put(parts[0], offset);
+         }
+
+         String line;
+         while ((line = reader.readLine()) != null) {
+            String[] parts = line.split("\t");
+            StepStats stats = new StepStats(parts[0]);
+            stats.passed = Long.parseLong(parts[1]);
+            stats.retried = Long.parseLong(parts[2]);
+            stats.failed = Long.parseLong(parts[3]);
+            stats.refused = Long.parseLong(parts[4]);
+            stats.retryMillis = Long.parseLong(parts[5]);
+            steps.put(stats.step, stats);
+         }
+      } catch (NumberFormatException | ArrayIndexOutOfBoundsException | NullPointerException ex) {
+         System.out.println("Ignoring damaged flakiness index: " + ex);
+         steps.clear();
+         segmentOffsets.clear();
+      }
+   }
+
+   /**
+    * Fold in everything appended to each segment after the index was written.
+    */
+   private void replaySegments() throws IOException {
+      File[] files = directory.listFiles(new FilenameFilter() {
+         @Override
+         public boolean accept(File dir, String name) {
+            return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+         }
+      });
+      if (files == null) {
+         return;
+      }
+
+      Arrays.sort(files);
+      for (File file : files) {
+         Long offset = segmentOffsets.get(file.getName());
+         segmentOffsets.put(file.getName(), replaySegment(file, offset == null ? 0 : offset));
+      }
+   }
+
+   /**
+    * Only whole lines count: the JVM writing the segment may be part way through appending the last one, so the offset
+    * stops at the last newline and that line is picked up next time.
+    * @param file The segment
+    * @param offset How far into it has already been folded in
+    * @return How far into it has been folded in now.
+    */
+   private long replaySegment(File file, long offset) throws IOException {
+      long consumed = offset;
+      try (FileInputStream stream = new FileInputStream(file)) {
+         stream.getChannel().position(offset);
+         InputStream in = new BufferedInputStream(stream);
+
+         ByteArrayOutputStream line = new ByteArrayOutputStream();
+         int b;
+         while ((b = in.read()) != -1) {
+            if (b != '\n') {
+               line.write(b);
+               continue;
+            }
+            applyLogLine(new String(line.toByteArray(), StandardCharsets.UTF_8));
+            consumed += line.size() + 1;
+            line.reset();
+         }
+      }
+      return consumed;
+   }
+
+   /**
+    * @param line time, step, outcome, retry millis
+    */
+   private void applyLogLine(String line) {
+      String[] parts = line.split("\t");
+      try {
+         if (parts.length != 4) {
+            throw new IllegalArgumentException("expected 4 fields");
+         }
+         apply(parts[1], Outcome.valueOf(parts[2]), Long.parseLong(parts[3]));
+      } catch (IllegalArgumentException ex) {
+         //Most likely a line a killed run only half wrote, with the next run's line appended to it.
+         System.out.println("Skipping bad flakiness log line: " + line);
+      }
+   }
+
+   /**
+    * Write the index to a temporary file first, so a crash part way through leaves the old index intact.
+    */
+   private void writeIndex() throws IOException {
+      File temp = File.createTempFile(INDEX_FILE, ".tmp", directory);
+      try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8))) {
+         writer.write(segmentOffsets.size() + "\n");
+         for (Map.Entry<String, Long> offset : segmentOffsets.entrySet()) {
+            writer.write(offset.getKey() + "\t" + offset.getValue() + "\n");
+         }
+         for (StepStats stats : steps.values()) {
+            writer.write(stats.step + "\t" + stats.passed + "\t" + stats.retried + "\t" + stats.failed + "\t" + stats.refused
+                    + "\t" + stats.retryMillis + "\n");
+         }
+      }
+
+      Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+   }
+
+   private static String clean(String givenStep) {
+      return givenStep.replaceAll("[\\t\\r\\n]+", " ");
+   }
+}
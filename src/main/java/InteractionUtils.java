@@ -1,15 +1,21 @@
 import org.openqa.selenium.*;
 import org.openqa.selenium.interactions.Actions;
 
+import java.util.function.Supplier;
+
 public class InteractionUtils {
    private WebDriver driver;
    private WaitUtils waitUtils;
    private Actions actions;
+   private FlakinessStore flakiness;
+   private FlakinessStore.RetryBudget retryBudget;
 
-   InteractionUtils(WebDriver givenDriver) {
+   InteractionUtils(WebDriver givenDriver, WaitUtils givenWaitUtils, Actions givenActions, FlakinessStore.RetryBudget givenRetryBudget) {
       this.driver = givenDriver;
-      this.waitUtils = new WaitUtils(givenDriver);
-      this.actions = new Actions(givenDriver);
+      this.flakiness = FlakinessStore.shared();
+      this.retryBudget = givenRetryBudget;
+      this.waitUtils = givenWaitUtils;
+      this.actions = givenActions;
    }
 
    /**
@@ -39,14 +45,14 @@ public class InteractionUtils {
    void javascriptClickElementByXpath(String givenXpath){
       WebElement  element = driver.findElement(By.xpath(givenXpath));
       ((JavascriptExecutor) driver).executeScript("arguments[0].scrollIntoView(true);", element);
-      Actions act=new Actions(driver);
-      act.scrollToElement(element);
+      //Actions is shared by the whole session, so perform straight away rather than leave a scroll queued in it.
+      actions.scrollToElement(element).perform();
 
       waitUtils.waitForVisibilityOfLocator(givenXpath);
       waitUtils.waitForClickabilityOfLocator(givenXpath);
 
       waitUtils.hardWait(1000);
-      act.moveToElement(element).click().perform();
+      actions.moveToElement(element).click().perform();
    }
 
    /**
@@ -56,15 +62,26 @@ public class InteractionUtils {
    void clickOnElementByXpath(String givenXpath) {
       waitUtils.waitForPresenceOfLocator(givenXpath);
       waitUtils.waitForVisibilityOfLocator(givenXpath);
-      WebElement element = waitUtils.waitForClickabilityOfElement(waitUtils.waitForVisibilityOfLocator(givenXpath));
+      final WebElement element = waitUtils.waitForClickabilityOfElement(waitUtils.waitForVisibilityOfLocator(givenXpath));
+
+      String step = "click " + givenXpath;
 
       //I hate to use a thread.sleep here but ran out of options. - Adam McKeown
       try {
          element.click();
       } catch (ElementNotInteractableException ex){
-         waitUtils.hardWait(1000);
-         element.click();
+         flakiness.retry(step, retryBudget, ex, new Supplier<Void>() {
+            @Override
+            public Void get() {
+               waitUtils.hardWait(1000);
+               element.click();
+               return null;
+            }
+         });
+         return;
       }
+
+      flakiness.record(step, FlakinessStore.Outcome.PASSED, 0);
    }
 
    /**
@@ -6,21 +6,22 @@ class PropertiesHandler {
    /**
     * Read the properties file.
     * @param fileName The name of the properties file to scan
-    * @return A Properties object.
+    * @return A Properties object. It is empty if the file could not be read.
     */
    static Properties readPropertiesFile(String fileName) {
       FileInputStream fis = null;
-      java.util.Properties prop = null;
+      java.util.Properties prop = new java.util.Properties();
 
       try {
          fis = new FileInputStream(fileName);
-         prop = new java.util.Properties();
          prop.load(fis);
       } catch (Exception e) {
          e.printStackTrace();
       } finally {
          try {
-            fis.close();
+            if (fis != null) {
+               fis.close();
+            }
          } catch (Exception e) {
             e.printStackTrace();
          }
@@ -0,0 +1,19 @@
+import org.openqa.selenium.WebDriverException;
+
+/**
+ * Thrown when a step that FlakinessStore has quarantined fails, so the runner can report it apart from real failures.
+ */
+public class QuarantinedStepException extends WebDriverException {
+   private static final long serialVersionUID = 1L;
+
+   private final String step;
+
+   QuarantinedStepException(String givenStep, Throwable cause) {
+      super("Quarantined step failed: " + givenStep, cause);
+      this.step = givenStep;
+   }
+
+   String getStep() {
+      return step;
+   }
+}
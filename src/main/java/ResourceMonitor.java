@@ -0,0 +1,143 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reports how heap, garbage collection, open file handles, threads and browser sessions have grown every so many
+ * flows, so a long running worker that is leaking shows it long before it runs out of memory or handles.
+ * It also sweeps for sessions that have gone unused for too long on a timer of its own, so they are closed even when
+ * no flows are finishing.
+ */
+public class ResourceMonitor {
+   private static final long BYTES_PER_MB = 1024L * 1024L;
+   private static final long MAX_SWEEP_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+   private final String name;
+   private final long reportEvery;
+   private final long maxIdleMillis;
+   private final AtomicLong flows = new AtomicLong();
+   private final AtomicLong orphansClosed = new AtomicLong();
+   private final ScheduledExecutorService sweeper;
+   private Snapshot last;
+
+   /**
+    * @param givenName What to call this JVM in reports, e.g. "Worker 5555"
+    * @param givenReportEvery How many flows between reports, e.g. 1000
+    * @param givenMaxIdleMillis How long a session can go unused before it is closed as an orphan.
+    */
+   ResourceMonitor(String givenName, long givenReportEvery, long givenMaxIdleMillis) {
+      this.name = givenName;
+      this.reportEvery = givenReportEvery;
+      this.maxIdleMillis = givenMaxIdleMillis;
+      this.last = new Snapshot();
+
+      //A daemon thread, so an idle sweeper never keeps the JVM alive.
+      this.sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         @Override
+         public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, givenName + " orphan sweeper");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      long sweepMillis = Math.min(givenMaxIdleMillis, MAX_SWEEP_MILLIS);
+      sweeper.scheduleWithFixedDelay(new Runnable() {
+         @Override
+         public void run() {
+            sweep();
+         }
+      }, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Close any sessions that have been idle for longer than the limit.
+    */
+   void sweep() {
+      //An exception would cancel the schedule, and with it every later sweep.
+      try {
+         orphansClosed.addAndGet(SessionContext.closeOrphans(maxIdleMillis));
+      } catch (RuntimeException ex) {
+         System.out.println("Orphan sweep failed: " + ex);
+      }
+   }
+
+   /**
+    * Stop sweeping for orphans.
+    */
+   void stop() {
+      sweeper.shutdownNow();
+   }
+
+   /**
+    * Count a finished flow, and report if it is time to.
+    */
+   void flowFinished() {
+      long count = flows.incrementAndGet();
+      if (count % reportEvery == 0) {
+         report(count);
+      }
+   }
+
+   private synchronized void report(long count) {
+      long orphans = orphansClosed.getAndSet(0);
+      Snapshot now = new Snapshot();
+
+      System.out.println(String.format("%s after %d flows: heap after GC %dMB (%+dMB), GCs %d (%+d, %+dms), open files %s, "
+                      + "threads %d (%+d), sessions %d (%+d), orphans closed %d",
+              name, count, now.heapAfterGc / BYTES_PER_MB, (now.heapAfterGc - last.heapAfterGc) / BYTES_PER_MB,
+              now.gcCount, now.gcCount - last.gcCount, now.gcMillis - last.gcMillis,
+              now.openFiles < 0 ? "n/a" : now.openFiles + " (" + String.format("%+d", now.openFiles - last.openFiles) + ")",
+              now.threads, now.threads - last.threads, now.sessions, now.sessions - last.sessions, orphans));
+      last = now;
+   }
+
+   /**
+    * The JVM's resource use at one point in time.
+    */
+   static class Snapshot {
+      final long heapAfterGc;
+      final long gcCount;
+      final long gcMillis;
+      final long openFiles;
+      final int threads;
+      final int sessions;
+
+      Snapshot() {
+         //Heap in use straight after the last collection is what is actually being held on to; current usage just
+         //depends on how long ago the last GC was.
+         long heap = 0;
+         for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage afterGc = pool.getCollectionUsage();
+            if (pool.getType() == MemoryType.HEAP && afterGc != null) {
+               heap += afterGc.getUsed();
+            }
+         }
+         this.heapAfterGc = heap;
+
+         long count = 0;
+         long millis = 0;
+         for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+         }
+         this.gcCount = count;
+         this.gcMillis = millis;
+
+         //Only Unix JVMs can tell us how many file descriptors are open.
+         OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+         this.openFiles = os instanceof com.sun.management.UnixOperatingSystemMXBean
+                 ? ((com.sun.management.UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount() : -1;
+
+         this.threads = ManagementFactory.getThreadMXBean().getThreadCount();
+         this.sessions = SessionContext.openSessions();
+      }
+   }
+}
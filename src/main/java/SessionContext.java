@@ -0,0 +1,200 @@
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.interactions.Actions;
+import org.openqa.selenium.remote.service.DriverService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Everything the page objects need for one browser session: the driver, and a single WaitUtils, Actions,
+ * InteractionUtils and StateUtils that all of them share instead of each building their own.
+ * The page objects themselves are created once per session too, so a session can run flow after flow without
+ * allocating a new set of helpers every time.
+ *
+ * Every open session is tracked here, so sessions that were never closed (a flow thread died, or a slot went idle)
+ * can be found and shut down, along with the driver process behind them. A session is in use from startFlow() until
+ * endFlow(), and is never counted as idle while a flow is running in it.
+ */
+public class SessionContext {
+   private static final Set<SessionContext> OPEN_SESSIONS = Collections.newSetFromMap(new ConcurrentHashMap<SessionContext, Boolean>());
+
+   static {
+      Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+         @Override
+         public void run() {
+            closeAll();
+         }
+      }));
+   }
+
+   private final WebDriver driver;
+   private final DriverService service;
+   private final WaitUtils waitUtils;
+   private final Actions actions;
+   private final InteractionUtils interaction;
+   private final StateUtils state;
+   private final FlakinessStore.RetryBudget retryBudget;
+
+   private SideMenu sideMenu;
+   private Amenities amenities;
+   private int flows;
+   private boolean inUse;
+   private long lastUsed;
+   private boolean closed;
+
+   SessionContext(WebDriver givenDriver) {
+      this(givenDriver, null);
+   }
+
+   /**
+    * @param givenDriver The driver for this session
+    * @param givenService The driver executable we started for it, or null if it is remote or fake.
+    *                     It is stopped on close even if quitting the browser fails.
+    */
+   SessionContext(WebDriver givenDriver, DriverService givenService) {
+      this.driver = givenDriver;
+      this.service = givenService;
+      this.retryBudget = FlakinessStore.RetryBudget.perFlow();
+      this.waitUtils = new WaitUtils(givenDriver, retryBudget);
+      this.actions = new Actions(givenDriver);
+      this.interaction = new InteractionUtils(givenDriver, waitUtils, actions, retryBudget);
+      this.state = new StateUtils(givenDriver, waitUtils);
+      this.lastUsed = System.currentTimeMillis();
+
+      OPEN_SESSIONS.add(this);
+   }
+
+   WebDriver driver() {
+      return driver;
+   }
+
+   WaitUtils waitUtils() {
+      return waitUtils;
+   }
+
+   Actions actions() {
+      return actions;
+   }
+
+   InteractionUtils interaction() {
+      return interaction;
+   }
+
+   StateUtils state() {
+      return state;
+   }
+
+   SideMenu sideMenu() {
+      if (sideMenu == null) {
+         sideMenu = new SideMenu(this);
+      }
+      return sideMenu;
+   }
+
+   Amenities amenities() {
+      if (amenities == null) {
+         amenities = new Amenities(this);
+      }
+      return amenities;
+   }
+
+   /**
+    * Mark the start of another flow in this session. Each flow gets the full retry budget.
+    * @return False if the session has already been closed, in which case the flow needs a new one.
+    */
+   synchronized boolean startFlow() {
+      if (closed) {
+         return false;
+      }
+      flows++;
+      inUse = true;
+      retryBudget.reset();
+      return true;
+   }
+
+   /**
+    * Mark the end of the current flow. The session counts as idle from here until the next flow starts.
+    */
+   synchronized void endFlow() {
+      inUse = false;
+      lastUsed = System.currentTimeMillis();
+   }
+
+   /**
+    * @return How many flows this session has started.
+    */
+   synchronized int flows() {
+      return flows;
+   }
+
+   /**
+    * Quit the browser and stop its driver executable. Safe to call more than once.
+    */
+   synchronized void close() {
+      if (closed) {
+         return;
+      }
+      closed = true;
+      OPEN_SESSIONS.remove(this);
+
+      try {
+         driver.quit();
+      } catch (WebDriverException ex) {
+         System.out.println("Problem quitting browser, stopping its driver anyway: " + ex);
+      } finally {
+         if (service != null && service.isRunning()) {
+            service.stop();
+         }
+      }
+   }
+
+   /**
+    * @return How many sessions are open right now.
+    */
+   static int openSessions() {
+      return OPEN_SESSIONS.size();
+   }
+
+   /**
+    * Close every session that has had no flow running in it for the given time.
+    * @param maxIdleMillis How long a session can go unused before it counts as orphaned.
+    * @return How many sessions were closed.
+    */
+   static int closeOrphans(long maxIdleMillis) {
+      long cutoff = System.currentTimeMillis() - maxIdleMillis;
+      int closedCount = 0;
+      for (SessionContext session : new ArrayList<>(OPEN_SESSIONS)) {
+         if (session.closeIfIdleSince(cutoff)) {
+            closedCount++;
+         }
+      }
+      return closedCount;
+   }
+
+   /**
+    * Close this session if it isn't in use and hasn't been since the cutoff. Checking and closing under the same lock
+    * as startFlow() means a flow can't start in a session that is being closed.
+    */
+   private synchronized boolean closeIfIdleSince(long cutoff) {
+      if (closed || inUse || lastUsed >= cutoff) {
+         return false;
+      }
+      System.out.println("Closing orphaned session after " + flows + " flows");
+      close();
+      return true;
+   }
+
+   /**
+    * Close every open session. Runs on JVM shutdown, so nothing is left behind when a run is stopped early.
+    */
+   static void closeAll() {
+      List<SessionContext> sessions = new ArrayList<>(OPEN_SESSIONS);
+      for (SessionContext session : sessions) {
+         session.close();
+      }
+   }
+}
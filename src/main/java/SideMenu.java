@@ -9,10 +9,10 @@ public class SideMenu {
 
    private static final String SIDE_MENU_XPATH = "//span[contains(@class, 'sidemenu-label') and contains(text(), '%s')]";
 
-   SideMenu(WebDriver givenDriver) {
-      this.driver = givenDriver;
-      this.interaction = new InteractionUtils(driver);
-      this.waitUtils = new WaitUtils(driver);
+   SideMenu(SessionContext givenSession) {
+      this.driver = givenSession.driver();
+      this.interaction = givenSession.interaction();
+      this.waitUtils = givenSession.waitUtils();
    }
 
    enum SideMenuButtons {
@@ -6,9 +6,9 @@ public class StateUtils {
    private WebDriver driver;
    private WaitUtils waitUtils;
 
-   StateUtils(WebDriver givenDriver) {
+   StateUtils(WebDriver givenDriver, WaitUtils givenWaitUtils) {
       this.driver = givenDriver;
-      this.waitUtils = new WaitUtils(givenDriver);
+      this.waitUtils = givenWaitUtils;
    }
 
    /**
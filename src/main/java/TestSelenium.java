@@ -1,43 +1,87 @@
 import org.openqa.selenium.*;
 import org.openqa.selenium.chrome.ChromeDriver;
+import org.openqa.selenium.chrome.ChromeDriverService;
+import org.openqa.selenium.chrome.ChromeOptions;
 import org.openqa.selenium.firefox.FirefoxDriver;
+import org.openqa.selenium.firefox.FirefoxOptions;
+import org.openqa.selenium.firefox.GeckoDriverService;
 import org.openqa.selenium.interactions.Actions;
+import org.openqa.selenium.remote.RemoteWebDriver;
 import org.testng.Assert;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.Base64;
 import java.util.Properties;
 
 public class TestSelenium {
    public static void main(String[] args) {
-      RunTest test = new RunTest(new SetUpUtils().getDriver());
-      test.createBookingAndVerify();
+      SessionContext session = new SetUpUtils().openSession();
+      try {
+         session.startFlow();
+         RunTest test = new RunTest(session);
+         test.createBookingAndVerify();
+      } finally {
+         session.close();
+      }
+      FlakinessStore.shared().printReport(System.out);
    }
 
    public static class SetUpUtils {
       private static final String USER_PATH = System.getProperty("user.dir");
+      private static final String RESOURCES_PATH = USER_PATH + File.separator + "src" + File.separator + "main" + File.separator + "resources" + File.separator;
 
       final static PropertiesHandler propHandler = new PropertiesHandler();
-      final static Properties prop = propHandler.readPropertiesFile(USER_PATH + "\\src\\main\\resources\\config.properties");
+      final static Properties prop = propHandler.readPropertiesFile(RESOURCES_PATH + "config.properties");
 
-      private static final String DRIVER_PATH = USER_PATH + "\\src\\main\\resources\\" + prop.getProperty("BROWSER") + "driver.exe";
+      private static final String DRIVER_PATH = RESOURCES_PATH + prop.getProperty("BROWSER") + "driver.exe";
       private static final String DRIVER_EXE = "webdriver." + prop.getProperty("BROWSER") + ".driver";
 
       /**
-       * Create a new driver for the browser tests to run in.
-       * This defa
-       * @return
+       * Create a new browser session for the tests to run in.
+       * The driver executable is started explicitly, so the session can stop it even if the browser won't quit.
+       * @return A SessionContext, which must be closed when the session is finished with.
        */
-      WebDriver getDriver() {
+      SessionContext openSession() {
+         //If a grid/remote hub is configured, hand the session off to it instead of a local browser.
+         if (prop.getProperty("REMOTE_URL") != null) {
+            return new SessionContext(getRemoteDriver(prop.getProperty("REMOTE_URL")));
+         }
+
          System.out.println("Launching Browser");
          System.setProperty(DRIVER_EXE, DRIVER_PATH);
 
 
          switch (prop.getProperty("BROWSER")){
-            case ("gecko"):
-               return new FirefoxDriver();
             case ("chrome"):
-               return new ChromeDriver();
+               ChromeDriverService chromeService = ChromeDriverService.createDefaultService();
+               return new SessionContext(new ChromeDriver(chromeService), chromeService);
+            case ("gecko"):
             default:
-               return new FirefoxDriver();
+               GeckoDriverService geckoService = GeckoDriverService.createDefaultService();
+               return new SessionContext(new FirefoxDriver(geckoService), geckoService);
+         }
+      }
+
+      /**
+       * Create a new driver on a remote Selenium server or grid hub, using the configured browser.
+       * @param givenUrl The url of the remote server, e.g. http://localhost:4444
+       * @return A RemoteWebDriver for the configured browser.
+       */
+      WebDriver getRemoteDriver(String givenUrl) {
+         System.out.println("Launching Remote Browser on " + givenUrl);
+
+         try {
+            switch (prop.getProperty("BROWSER")){
+               case ("chrome"):
+                  return new RemoteWebDriver(new URL(givenUrl), new ChromeOptions());
+               case ("gecko"):
+               default:
+                  return new RemoteWebDriver(new URL(givenUrl), new FirefoxOptions());
+            }
+         } catch (MalformedURLException ex) {
+            throw new IllegalArgumentException("Bad remote url: " + givenUrl, ex);
          }
       }
    }
@@ -55,18 +99,20 @@ public class TestSelenium {
       private static final String BOOKING_DURATION_STRING = "6:05pm - 7:35pm";
       private static final String BOOKING_COMMENT_STRING = "Test comment for QA";
 
+      SessionContext session;
       WebDriver driver;
       WaitUtils waitUtils;
       Actions actions;
       StateUtils stateUtils;
       InteractionUtils interactionUtils;
 
-      RunTest(WebDriver givenDriver) {
-         this.driver = givenDriver;
-         this.actions = new Actions(givenDriver);
-         this.waitUtils = new WaitUtils(givenDriver);
-         this.stateUtils = new StateUtils(givenDriver);
-         this.interactionUtils = new InteractionUtils(givenDriver);
+      RunTest(SessionContext givenSession) {
+         this.session = givenSession;
+         this.driver = givenSession.driver();
+         this.actions = givenSession.actions();
+         this.waitUtils = givenSession.waitUtils();
+         this.stateUtils = givenSession.state();
+         this.interactionUtils = givenSession.interaction();
       }
 
       void login() {
@@ -109,10 +155,10 @@ public class TestSelenium {
 
          waitUtils.waitForTribePageLoad();
 
-         SideMenu sideMenu = new SideMenu(driver);
+         SideMenu sideMenu = session.sideMenu();
          sideMenu.sideMenuNavigation(SideMenu.SideMenuButtons.AMENITIES);
 
-         Amenities amenitiesPage = new Amenities(driver);
+         Amenities amenitiesPage = session.amenities();
          amenitiesPage.amenitiesNavigation(Amenities.AmenitiesLinks.TODDLER_BOOTCAMP);
          Assert.assertTrue(amenitiesPage.requestBooking(BOOKING_DATE, BOOKING_START_HOUR, BOOKING_START_MINUTE, BOOKING_DURATION_HOUR, BOOKING_DURATION_MINUTE));
          Assert.assertTrue(amenitiesPage.confirmBooking(BOOKING_DURATION_STRING));
@@ -127,9 +173,13 @@ public class TestSelenium {
          cleanUp();
       }
 
+      /**
+       * Log out by dropping the session cookies. The browser stays open, so the session can go on to the next flow;
+       * whoever opened the session closes it.
+       */
       void cleanUp() {
          System.out.println("Logging Out");
-         driver.close();
+         driver.manage().deleteAllCookies();
       }
    }
 }
\ No newline at end of file
@@ -1,16 +1,22 @@
 
 import org.openqa.selenium.*;
+import org.openqa.selenium.support.ui.ExpectedCondition;
 import org.openqa.selenium.support.ui.ExpectedConditions;
 import org.openqa.selenium.support.ui.WebDriverWait;
 
 import java.time.Duration;
+import java.util.function.Supplier;
 
 public class WaitUtils {
    private WebDriver driver;
    private WebDriverWait wait;
+   private FlakinessStore flakiness;
+   private FlakinessStore.RetryBudget retryBudget;
 
-   WaitUtils(WebDriver givenDriver) {
+   WaitUtils(WebDriver givenDriver, FlakinessStore.RetryBudget givenRetryBudget) {
       this.driver = givenDriver;
+      this.flakiness = FlakinessStore.shared();
+      this.retryBudget = givenRetryBudget;
 
       //This could be turned into a factory where we have a variety of wait times depending on the page in question.
       this.wait = new WebDriverWait(driver, Duration.ofSeconds(30L));
@@ -40,20 +46,7 @@ public class WaitUtils {
     * @return A WebElement
     */
    WebElement waitForClickabilityOfElement(WebElement givenElement) {
-      WebElement result;
-
-      //If an element cannot be clicked on the first try, there could be a loading spinner on the page.
-      //Even though we should check for these elsewhere, this is a last ditch effort to try again.
-      try {
-         result = wait.until(ExpectedConditions.elementToBeClickable(givenElement));
-      } catch (ElementNotInteractableException | NoSuchElementException | TimeoutException ex){
-         System.out.println("Problem with Element, waiting and trying again: " + ex);
-         waitForTribePageLoad();
-         waitForBookingFormLoad();
-         waitForPageLoader();
-         result = wait.until(ExpectedConditions.elementToBeClickable(givenElement));
-      }
-      return result;
+      return waitForClickabilityWithRetry("clickable " + describe(givenElement), ExpectedConditions.elementToBeClickable(givenElement));
    }
 
    /**
@@ -98,22 +91,48 @@ public class WaitUtils {
     * @return A WebElement
     */
    WebElement waitForClickabilityOfLocator(String givenXpath) {
+      return waitForClickabilityWithRetry("clickable " + givenXpath, ExpectedConditions.elementToBeClickable(By.xpath(givenXpath)));
+   }
+
+   /**
+    * Wait for a clickability condition, retrying once after the loading spinners are gone.
+    * Every attempt is recorded in the FlakinessStore, which also decides whether the retry is worth its time.
+    * @param step The name the step is recorded under
+    * @param condition The clickability condition to wait for
+    * @return A WebElement
+    */
+   private WebElement waitForClickabilityWithRetry(String step, final ExpectedCondition<WebElement> condition) {
       WebElement result;
 
       //If an element cannot be clicked on the first try, there could be a loading spinner on the page.
       //Even though we should check for these elsewhere, this is a last ditch effort to try again.
       try {
-         result = wait.until(ExpectedConditions.elementToBeClickable(By.xpath(givenXpath)));
+         result = wait.until(condition);
       } catch (ElementNotInteractableException | NoSuchElementException | TimeoutException ex){
-         System.out.println("Problem with Element, waiting and trying again: " + ex);
-         waitForTribePageLoad();
-         waitForBookingFormLoad();
-         waitForPageLoader();
-         result = wait.until(ExpectedConditions.elementToBeClickable(By.xpath(givenXpath)));
+         return flakiness.retry(step, retryBudget, ex, new Supplier<WebElement>() {
+            @Override
+            public WebElement get() {
+               waitForTribePageLoad();
+               waitForBookingFormLoad();
+               waitForPageLoader();
+               return wait.until(condition);
+            }
+         });
       }
+
+      flakiness.record(step, FlakinessStore.Outcome.PASSED, 0);
       return result;
    }
 
+   /**
+    * Element toString() includes the session id, so only keep the locator part to name the step the same every run.
+    */
+   private static String describe(WebElement givenElement) {
+      String description = String.valueOf(givenElement);
+      int locator = description.lastIndexOf("-> ");
+      return locator < 0 ? description : description.substring(locator + 3);
+   }
+
    /**
     * Makes sure an element is present in the DOM, by looking for its xpath
     * @param givenXpath The xpath to verify presence
@@ -0,0 +1,280 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A worker JVM that runs scenarios handed to it by a Coordinator.
+ * Each worker owns a fixed number of browser session slots, so no more than that many drivers are ever open at once.
+ * A slot keeps its session for up to SESSION_FLOW_LIMIT flows, and starts a fresh one after any failure.
+ * The worker serves one coordinator at a time, and keeps serving new ones until a coordinator tells it to shut down.
+ *
+ * Usage: java Worker [port] [sessions] [local|remote|fake] [remote url or fake page load millis]
+ */
+public class Worker {
+   static final String HELLO = "HELLO";
+   static final String RUN = "RUN";
+   static final String RESULT = "RESULT";
+   static final String SHUTDOWN = "SHUTDOWN";
+   static final String PASS = "PASS";
+   static final String FAIL = "FAIL";
+   static final String QUARANTINED = "QUARANTINED";
+
+   static final String SMOKE_SCENARIO = "smoke";
+   static final String BOOKING_SCENARIO = "createBookingAndVerify";
+
+   private static final String FAKE_TEST_URL = "http://fake.local/";
+   private static final int DEFAULT_FAKE_PAGE_LOAD_MILLIS = 200;
+
+   //Browsers grow over time too, so even a healthy session gets replaced after this many flows.
+   private static final int SESSION_FLOW_LIMIT = 50;
+   private static final int FLOWS_PER_REPORT = 1000;
+   private static final long ORPHAN_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+   enum Backend {
+      LOCAL, REMOTE, FAKE
+   }
+
+   private final int port;
+   private final int sessions;
+   private final Backend backend;
+   private final String backendArg;
+   private final ExecutorService sessionPool;
+   private final ThreadLocal<SessionContext> slotSession = new ThreadLocal<>();
+   private final ResourceMonitor monitor;
+
+   Worker(int givenPort, int givenSessions, Backend givenBackend, String givenBackendArg) {
+      this.port = givenPort;
+      this.sessions = givenSessions;
+      this.backend = givenBackend;
+      this.backendArg = givenBackendArg;
+      this.sessionPool = Executors.newFixedThreadPool(givenSessions);
+      this.monitor = new ResourceMonitor("Worker " + givenPort, FLOWS_PER_REPORT, ORPHAN_IDLE_MILLIS);
+
+      if (givenBackend == Backend.FAKE) {
+         useFakeConfig();
+      }
+   }
+
+   /**
+    * The booking flow reads its url and login from config.properties. FakeDriver accepts anything, so fill in
+    * whatever the config doesn't have rather than needing a real config to run against the fake.
+    */
+   private static void useFakeConfig() {
+      if (TestSelenium.SetUpUtils.prop.getProperty("TEST_URL") == null) {
+         TestSelenium.SetUpUtils.prop.setProperty("TEST_URL", FAKE_TEST_URL);
+      }
+      if (TestSelenium.SetUpUtils.prop.getProperty("USER") == null) {
+         TestSelenium.SetUpUtils.prop.setProperty("USER", Base64.getEncoder().encodeToString("fake@fake.local".getBytes(StandardCharsets.UTF_8)));
+      }
+      if (TestSelenium.SetUpUtils.prop.getProperty("PWORD") == null) {
+         TestSelenium.SetUpUtils.prop.setProperty("PWORD", Base64.getEncoder().encodeToString("fake".getBytes(StandardCharsets.UTF_8)));
+      }
+   }
+
+   public static void main(String[] args) throws IOException, InterruptedException {
+      int port = args.length > 0 ? Integer.parseInt(args[0]) : 5555;
+      int sessions = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+      Backend backend = args.length > 2 ? Backend.valueOf(args[2].toUpperCase()) : Backend.LOCAL;
+      String backendArg = args.length > 3 ? args[3] : null;
+
+      new Worker(port, sessions, backend, backendArg).serve();
+   }
+
+   /**
+    * Serve coordinators one after another, until one of them says to shut down.
+    */
+   void serve() throws IOException, InterruptedException {
+      try (ServerSocket server = new ServerSocket(port)) {
+         System.out.println("Worker listening on port " + port + " with " + sessions + " " + backend + " sessions");
+
+         boolean shutdown = false;
+         while (!shutdown) {
+            try (Socket socket = server.accept()) {
+               shutdown = serveCoordinator(socket);
+            } catch (IOException ex) {
+               System.out.println("Lost coordinator connection: " + ex);
+            }
+            //Scores are only kept on the worker side, so this is where a distributed run gets to see them.
+            FlakinessStore.shared().printReport(System.out);
+         }
+
+         sessionPool.shutdown();
+         sessionPool.awaitTermination(1, TimeUnit.HOURS);
+      } finally {
+         sessionPool.shutdownNow();
+         monitor.stop();
+         SessionContext.closeAll();
+      }
+   }
+
+   /**
+    * Run every scenario a coordinator sends until it says to shut down or disconnects.
+    * If it disconnects, runs it queued that haven't started yet are dropped; it will have handed them to someone else.
+    * @param socket The coordinator's connection
+    * @return True if the coordinator told this worker to shut down.
+    */
+   private boolean serveCoordinator(Socket socket) throws IOException {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
+      List<Future<?>> runs = new ArrayList<>();
+      send(writer, HELLO + "\t" + sessions);
+
+      String line;
+      while ((line = reader.readLine()) != null) {
+         if (line.equals(SHUTDOWN)) {
+            return true;
+         }
+
+         String[] parts = line.split("\t");
+         if (parts.length == 3 && parts[0].equals(RUN)) {
+            //Only keep the runs that haven't finished, or a long session would hold on to every one it ever ran.
+            Iterator<Future<?>> finished = runs.iterator();
+            while (finished.hasNext()) {
+               if (finished.next().isDone()) {
+                  finished.remove();
+               }
+            }
+            runs.add(submit(writer, parts[1], parts[2]));
+         } else {
+            System.out.println("Worker ignoring unknown command: " + line);
+         }
+      }
+
+      for (Future<?> run : runs) {
+         run.cancel(false);
+      }
+      return false;
+   }
+
+   /**
+    * Queue a scenario for the next free session slot.
+    * @param writer Where to send the result: the connection of the coordinator that asked for it.
+    * @param id The coordinator's id for this run, echoed back with the result.
+    * @param scenario The name of the scenario to run.
+    * @return The queued run
+    */
+   private Future<?> submit(final PrintWriter writer, final String id, final String scenario) {
+      return sessionPool.submit(new Runnable() {
+         @Override
+         public void run() {
+            runAndReport(writer, id, scenario);
+         }
+      });
+   }
+
+   private void runAndReport(PrintWriter writer, String id, String scenario) {
+      String status = PASS;
+      String message = "";
+      long start = System.nanoTime();
+
+      //Anything a scenario throws, including TestNG assertion errors and other Errors, is a failed run - not a dead
+      //worker. The coordinator has to get a result either way, or it will wait out the run timeout and drop the worker.
+      SessionContext session = null;
+      try {
+         session = startSlotFlow();
+         runScenario(scenario, session);
+      } catch (QuarantinedStepException ex) {
+         status = QUARANTINED;
+         message = ex.getStep() + ": " + ex.getCause();
+      } catch (Throwable ex) {
+         status = FAIL;
+         message = String.valueOf(ex);
+      }
+
+      try {
+         if (session != null) {
+            session.endFlow();
+         }
+         monitor.flowFinished();
+
+         //After a failure we don't know what state the browser is in, so don't hand it to the next flow.
+         if (!status.equals(PASS) && session != null) {
+            session.close();
+            slotSession.remove();
+         }
+      } finally {
+         long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+         send(writer, RESULT + "\t" + id + "\t" + scenario + "\t" + status + "\t" + millis + "\t" + clean(message));
+      }
+   }
+
+   /**
+    * Start a flow in this slot's session, replacing the session if it has been closed (e.g. as an orphan while the
+    * slot was idle) or has run its share of flows.
+    * @return A SessionContext with a flow started in it
+    */
+   private SessionContext startSlotFlow() {
+      SessionContext session = slotSession.get();
+      if (session != null && session.flows() >= SESSION_FLOW_LIMIT) {
+         session.close();
+      }
+      if (session == null || !session.startFlow()) {
+         session = createSession();
+         session.startFlow();
+         slotSession.set(session);
+      }
+      return session;
+   }
+
+   /**
+    * Open a new session from whichever backend this worker was started with.
+    * @return A SessionContext
+    */
+   SessionContext createSession() {
+      switch (backend) {
+         case FAKE:
+            return new SessionContext(new FakeDriver(backendArg != null ? Integer.parseInt(backendArg) : DEFAULT_FAKE_PAGE_LOAD_MILLIS));
+         case REMOTE:
+            return new SessionContext(new TestSelenium.SetUpUtils().getRemoteDriver(backendArg));
+         case LOCAL:
+         default:
+            return new TestSelenium.SetUpUtils().openSession();
+      }
+   }
+
+   /**
+    * Run a named scenario in the given session.
+    * @param scenario The scenario name
+    * @param session The session to run it in
+    */
+   void runScenario(String scenario, SessionContext session) {
+      switch (scenario) {
+         case SMOKE_SCENARIO:
+            session.driver().get(backend == Backend.FAKE ? FAKE_TEST_URL : TestSelenium.SetUpUtils.prop.getProperty("TEST_URL"));
+            if (session.driver().getTitle() == null) {
+               throw new IllegalStateException("Page loaded with no title");
+            }
+            break;
+         case BOOKING_SCENARIO:
+            new TestSelenium.RunTest(session).createBookingAndVerify();
+            break;
+         default:
+            throw new IllegalArgumentException("Unknown scenario: " + scenario);
+      }
+   }
+
+   private static void send(PrintWriter writer, String line) {
+      synchronized (writer) {
+         writer.println(line);
+      }
+   }
+
+   /**
+    * Keep exception messages on one line so they don't break the tab separated protocol.
+    */
+   private static String clean(String givenMessage) {
+      return givenMessage.replaceAll("[\\t\\r\\n]+", " ");
+   }
+}
@@ -0,0 +1,141 @@
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Runs the coordinator against a real Worker on the fake backend, alongside a scripted worker that misbehaves.
+ */
+public class CoordinatorTest {
+   @ClassRule
+   public static final TemporaryFolder STORE = new TemporaryFolder();
+
+   @BeforeClass
+   public static void useTemporaryFlakinessStore() {
+      System.setProperty("flakiness.store", STORE.getRoot().getPath());
+   }
+
+   @AfterClass
+   public static void closeSessions() {
+      SessionContext.closeAll();
+   }
+
+   @Test
+   public void runsOfADisconnectedWorkerAreRequeued() throws Exception {
+      ScriptedWorker dropping = new ScriptedWorker(true);
+      Coordinator coordinator = new Coordinator();
+      coordinator.connect(dropping.address(), false);
+      Thread fake = startFakeWorker(coordinator);
+
+      coordinator.run(Worker.SMOKE_SCENARIO, 10);
+      coordinator.shutdown();
+      fake.join(10000);
+
+      Coordinator.WorkerLink lost = coordinator.workers().get(0);
+      Coordinator.WorkerLink healthy = coordinator.workers().get(1);
+      assertFalse(lost.alive);
+      assertEquals(0, lost.runs());
+      assertEquals(10, healthy.passed);
+      assertEquals(10, healthy.runs());
+   }
+
+   @Test
+   public void lateResultFromAHungWorkerIsNotCountedTwice() throws Exception {
+      ScriptedWorker hanging = new ScriptedWorker(false);
+      Coordinator coordinator = new Coordinator(300);
+      coordinator.connect(hanging.address(), false);
+      Thread fake = startFakeWorker(coordinator);
+
+      //The hung worker is connected first, so it is handed run 0 before the fake worker gets anything.
+      coordinator.run(Worker.SMOKE_SCENARIO, 5);
+      coordinator.shutdown();
+      fake.join(10000);
+
+      Coordinator.WorkerLink hung = coordinator.workers().get(0);
+      Coordinator.WorkerLink healthy = coordinator.workers().get(1);
+      assertFalse(hung.alive);
+      assertEquals(5, healthy.passed);
+
+      //Run 0 was requeued and has already passed on the other worker.
+      assertFalse(hung.record(new Coordinator.Result(hung, 0, Worker.PASS, 5, "", false)));
+      assertEquals(0, hung.runs());
+      assertEquals(5, hung.runs() + healthy.runs());
+   }
+
+   /**
+    * Start a Worker on the fake backend in this JVM and connect the coordinator to it. The coordinator counts it as
+    * launched, so shutting the coordinator down stops the worker and ends the returned thread.
+    */
+   private static Thread startFakeWorker(Coordinator coordinator) throws IOException, InterruptedException {
+      int port;
+      try (ServerSocket probe = new ServerSocket(0)) {
+         port = probe.getLocalPort();
+      }
+
+      final Worker worker = new Worker(port, 1, Worker.Backend.FAKE, "0");
+      Thread thread = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               worker.serve();
+            } catch (IOException | InterruptedException ex) {
+               throw new IllegalStateException(ex);
+            }
+         }
+      }, "fake-worker-" + port);
+      thread.setDaemon(true);
+      thread.start();
+
+      coordinator.connect("localhost:" + port, true);
+      return thread;
+   }
+
+   /**
+    * A worker with one session that takes runs and never sends a result. It either drops the connection on its first
+    * run, or holds on to the runs and stays connected.
+    */
+   private static class ScriptedWorker {
+      private final ServerSocket server;
+
+      ScriptedWorker(final boolean dropOnFirstRun) throws IOException {
+         this.server = new ServerSocket(0);
+         Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+               try (ServerSocket listening = server; Socket socket = listening.accept()) {
+                  BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                  PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
+                  writer.println(Worker.HELLO + "\t1");
+
+                  String line;
+                  while ((line = reader.readLine()) != null) {
+                     if (dropOnFirstRun && line.startsWith(Worker.RUN)) {
+                        return;
+                     }
+                  }
+               } catch (IOException ex) {
+                  //The coordinator closing the connection is how a hung worker's test ends.
+               }
+            }
+         }, "scripted-worker");
+         thread.setDaemon(true);
+         thread.start();
+      }
+
+      String address() {
+         return "localhost:" + server.getLocalPort();
+      }
+   }
+}
@@ -0,0 +1,222 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriverException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FlakinessStoreTest {
+   private static final String STEP = "click //button[@id='x']";
+
+   @Rule
+   public final TemporaryFolder folder = new TemporaryFolder();
+
+   @Test
+   public void halfWrittenLastLineIsPickedUpOnceFinished() throws IOException {
+      File directory = folder.getRoot();
+      File segment = new File(directory, "flakiness-other-0.log");
+      append(segment, "1\t" + STEP + "\tPASSED\t0\n1\t" + STEP + "\tRETR");
+
+      FlakinessStore first = new FlakinessStore(directory);
+      assertEquals(1, first.stats(STEP).passed);
+      assertEquals(0, first.stats(STEP).retried);
+      first.close();
+
+      append(segment, "IED\t500\n");
+      FlakinessStore second = new FlakinessStore(directory);
+      assertEquals(1, second.stats(STEP).passed);
+      assertEquals(1, second.stats(STEP).retried);
+      assertEquals(500, second.stats(STEP).retryMillis);
+      second.close();
+   }
+
+   @Test
+   public void indexAheadOfTheLogIsRebuiltFromTheLog() throws IOException {
+      File directory = folder.getRoot();
+      append(new File(directory, "flakiness-other-0.log"), "1\t" + STEP + "\tPASSED\t0\n");
+      append(new File(directory, "flakiness.idx"), "1\nflakiness-other-0.log\t5000\n" + STEP + "\t100\t0\t0\t0\t0\n");
+
+      FlakinessStore store = new FlakinessStore(directory);
+      assertEquals(1, store.stats(STEP).passed);
+      store.close();
+   }
+
+   @Test
+   public void damagedIndexIsIgnored() throws IOException {
+      File directory = folder.getRoot();
+      append(new File(directory, "flakiness-other-0.log"), "1\t" + STEP + "\tFAILED\t700\n");
+      append(new File(directory, "flakiness.idx"), "1\nflakiness-other-0.log\n");
+
+      FlakinessStore store = new FlakinessStore(directory);
+      assertEquals(1, store.stats(STEP).failed);
+      assertEquals(700, store.stats(STEP).retryMillis);
+      store.close();
+
+      FlakinessStore reopened = new FlakinessStore(directory);
+      assertEquals(1, reopened.stats(STEP).failed);
+      reopened.close();
+   }
+
+   @Test
+   public void reindexFoldsInWhatAnotherWriterAppended() throws IOException {
+      File directory = folder.getRoot();
+      FlakinessStore ours = new FlakinessStore(directory);
+      FlakinessStore theirs = new FlakinessStore(directory);
+
+      ours.record(STEP, FlakinessStore.Outcome.PASSED, 0);
+      theirs.record(STEP, FlakinessStore.Outcome.RETRIED, 300);
+      theirs.record(STEP, FlakinessStore.Outcome.PASSED, 0);
+      ours.close();
+
+      //Ours is folded in and deleted; theirs is still being written, so it stays.
+      assertEquals(1, segments(directory).length);
+
+      theirs.record(STEP, FlakinessStore.Outcome.PASSED, 0);
+      theirs.close();
+      assertEquals(0, segments(directory).length);
+
+      FlakinessStore reopened = new FlakinessStore(directory);
+      assertEquals(3, reopened.stats(STEP).passed);
+      assertEquals(1, reopened.stats(STEP).retried);
+      assertEquals(300, reopened.stats(STEP).retryMillis);
+      reopened.close();
+   }
+
+   @Test
+   public void logIsFoldedIntoTheIndexInsteadOfGrowing() throws IOException {
+      File directory = folder.getRoot();
+      FlakinessStore store = new FlakinessStore(directory);
+      for (int i = 0; i < FlakinessStore.INDEX_EVERY * 3 + 10; i++) {
+         store.record(STEP, FlakinessStore.Outcome.PASSED, 0);
+      }
+
+      File[] segments = segments(directory);
+      assertEquals(1, segments.length);
+      assertTrue(segments[0].length() < 10L * 1024);
+      store.close();
+
+      FlakinessStore reopened = new FlakinessStore(directory);
+      assertEquals(FlakinessStore.INDEX_EVERY * 3 + 10, reopened.stats(STEP).passed);
+      reopened.close();
+   }
+
+   @Test
+   public void stepThatAlwaysFailsIsNotQuarantined() throws IOException {
+      FlakinessStore store = new FlakinessStore(folder.getRoot());
+      for (int i = 0; i < 25; i++) {
+         store.record(STEP, FlakinessStore.Outcome.FAILED, 100);
+      }
+
+      assertFalse(store.isQuarantined(STEP));
+      TimeoutException cause = new TimeoutException("broken");
+      try {
+         store.retry(STEP, new FlakinessStore.RetryBudget(60000), cause, failing(cause));
+         fail("The retry should have failed");
+      } catch (WebDriverException ex) {
+         assertSame(cause, ex);
+      }
+      store.close();
+   }
+
+   @Test
+   public void stepThatOftenOnlyPassesOnARetryIsQuarantined() throws IOException {
+      FlakinessStore store = new FlakinessStore(folder.getRoot());
+      for (int i = 0; i < 20; i++) {
+         store.record(STEP, i % 2 == 0 ? FlakinessStore.Outcome.PASSED : FlakinessStore.Outcome.RETRIED, 100);
+      }
+
+      assertTrue(store.isQuarantined(STEP));
+      try {
+         store.retry(STEP, new FlakinessStore.RetryBudget(60000), new TimeoutException("flaky"), failing(null));
+         fail("A quarantined step should not be retried");
+      } catch (QuarantinedStepException ex) {
+         assertEquals(STEP, ex.getStep());
+      }
+      assertEquals(1, store.stats(STEP).refused);
+      store.close();
+   }
+
+   @Test
+   public void retrySpendsTheBudgetAndRefusesOnceItIsGone() throws IOException {
+      FlakinessStore store = new FlakinessStore(folder.getRoot());
+      FlakinessStore.RetryBudget budget = new FlakinessStore.RetryBudget(100);
+      store.record(STEP, FlakinessStore.Outcome.RETRIED, 50);
+
+      assertEquals("done", store.retry(STEP, budget, new TimeoutException("slow"), new Supplier<String>() {
+         @Override
+         public String get() {
+            sleep(60);
+            return "done";
+         }
+      }));
+      assertTrue(budget.remaining() <= 40);
+      assertEquals(2, store.stats(STEP).retried);
+
+      TimeoutException cause = new TimeoutException("slow again");
+      try {
+         store.retry(STEP, budget, cause, failing(null));
+         fail("The budget should have run out");
+      } catch (WebDriverException ex) {
+         assertSame(cause, ex);
+      }
+      assertEquals(1, store.stats(STEP).refused);
+
+      budget.reset();
+      assertEquals(100, budget.remaining());
+      store.close();
+   }
+
+   @Test
+   public void unknownStepHasNoStats() throws IOException {
+      FlakinessStore store = new FlakinessStore(folder.getRoot());
+      assertNull(store.stats(STEP));
+      assertFalse(store.isQuarantined(STEP));
+      store.close();
+   }
+
+   private static Supplier<Void> failing(final WebDriverException ex) {
+      return new Supplier<Void>() {
+         @Override
+         public Void get() {
+            throw ex != null ? ex : new IllegalStateException("The step should not have been retried");
+         }
+      };
+   }
+
+   private static void sleep(long millis) {
+      try {
+         Thread.sleep(millis);
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   private static File[] segments(File directory) {
+      return directory.listFiles(new FilenameFilter() {
+         @Override
+         public boolean accept(File dir, String name) {
+            return name.startsWith("flakiness-") && name.endsWith(".log");
+         }
+      });
+   }
+
+   private static void append(File file, String text) throws IOException {
+      try (OutputStream out = new FileOutputStream(file, true)) {
+         out.write(text.getBytes(StandardCharsets.UTF_8));
+      }
+   }
+}